@@ -0,0 +1,124 @@
+package com.awesome.pro.db.cassandra.client;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Declares how records of an input file map to rows of a column family.
+ * One record is expected per line.
+ * @author siddharth.s
+ */
+public class BulkLoadSpec {
+
+	/**
+	 * Supported input file formats.
+	 */
+	public static enum Format {
+		/**
+		 * Delimiter separated values, optionally quoted with '"'.
+		 */
+		CSV,
+		/**
+		 * One flat JSON object per line.
+		 */
+		JSON_LINES
+	}
+
+	private final String columnFamilyName;
+	private final Format format;
+	private final String rowKeyField;
+	private final Map<String, String> columns = new LinkedHashMap<>();
+	private List<String> fieldNames = null;
+	private char delimiter = ',';
+
+	/**
+	 * @param columnFamilyName Name of the column family to load into.
+	 * @param format Format of the input file.
+	 * @param rowKeyField Name of the record field holding the row key.
+	 */
+	public BulkLoadSpec(final String columnFamilyName, final Format format,
+			final String rowKeyField) {
+		this.columnFamilyName = columnFamilyName;
+		this.format = format;
+		this.rowKeyField = rowKeyField;
+	}
+
+	/**
+	 * Maps a record field to a column. If no column is mapped, every
+	 * field other than the row key is stored under its own name.
+	 * @param field Name of the record field.
+	 * @param column Name of the column to store the field in.
+	 * @return This specification.
+	 */
+	public final BulkLoadSpec withColumn(final String field,
+			final String column) {
+		columns.put(field, column);
+		return this;
+	}
+
+	/**
+	 * Names CSV fields in order. If not set, the first line of the
+	 * file is read as the header.
+	 * @param names Names of the fields.
+	 * @return This specification.
+	 */
+	public final BulkLoadSpec withFieldNames(final String... names) {
+		fieldNames = Arrays.asList(names);
+		return this;
+	}
+
+	/**
+	 * @param delimiter CSV field delimiter.
+	 * @return This specification.
+	 */
+	public final BulkLoadSpec withDelimiter(final char delimiter) {
+		this.delimiter = delimiter;
+		return this;
+	}
+
+	/**
+	 * @return Name of the column family to load into.
+	 */
+	public final String getColumnFamilyName() {
+		return columnFamilyName;
+	}
+
+	/**
+	 * @return Format of the input file.
+	 */
+	public final Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return Name of the record field holding the row key.
+	 */
+	public final String getRowKeyField() {
+		return rowKeyField;
+	}
+
+	/**
+	 * @return Map of record field name to column name.
+	 */
+	public final Map<String, String> getColumns() {
+		return Collections.unmodifiableMap(columns);
+	}
+
+	/**
+	 * @return Names of CSV fields. Null if the header is to be read from the file.
+	 */
+	public final List<String> getFieldNames() {
+		return fieldNames;
+	}
+
+	/**
+	 * @return CSV field delimiter.
+	 */
+	public final char getDelimiter() {
+		return delimiter;
+	}
+
+}
@@ -0,0 +1,360 @@
+package com.awesome.pro.db.cassandra.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.awesome.pro.db.cassandra.client.BulkLoadSpec.Format;
+
+/**
+ * Parses single line records into a row key and columns as declared by
+ * a {@link BulkLoadSpec}. Instances hold no mutable state and can be
+ * shared between threads.
+ * @author siddharth.s
+ */
+class BulkRecordParser {
+
+	private final BulkLoadSpec spec;
+
+	// CSV field positions, resolved once per load.
+	private final int rowKeyIndex;
+	private final int[] fieldIndexes;
+	private final String[] columnNames;
+
+	/**
+	 * @param spec Load specification.
+	 * @param fieldNames Names of CSV fields in order. Ignored for JSON.
+	 */
+	BulkRecordParser(final BulkLoadSpec spec, final List<String> fieldNames) {
+		this.spec = spec;
+		if (spec.getFormat() != Format.CSV) {
+			rowKeyIndex = -1;
+			fieldIndexes = null;
+			columnNames = null;
+			return;
+		}
+
+		rowKeyIndex = fieldNames.indexOf(spec.getRowKeyField());
+		if (rowKeyIndex < 0) {
+			throw new IllegalArgumentException("Unknown row key field: "
+					+ spec.getRowKeyField());
+		}
+
+		final Map<String, String> columns = spec.getColumns();
+		if (columns.isEmpty()) {
+			fieldIndexes = new int[fieldNames.size() - 1];
+			columnNames = new String[fieldNames.size() - 1];
+			int j = 0;
+			for (int i = 0; i < fieldNames.size(); i ++) {
+				if (i != rowKeyIndex) {
+					fieldIndexes[j] = i;
+					columnNames[j] = fieldNames.get(i);
+					j ++;
+				}
+			}
+			return;
+		}
+
+		fieldIndexes = new int[columns.size()];
+		columnNames = new String[columns.size()];
+		int j = 0;
+		final Iterator<Entry<String, String>> iter = columns.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Entry<String, String> entry = iter.next();
+			fieldIndexes[j] = fieldNames.indexOf(entry.getKey());
+			if (fieldIndexes[j] < 0) {
+				throw new IllegalArgumentException("Unknown field: "
+						+ entry.getKey());
+			}
+			columnNames[j] = entry.getValue();
+			j ++;
+		}
+	}
+
+	/**
+	 * @param line Record to parse.
+	 * @param columns Map to add column names and values to.
+	 * @return Row key of the record. Null if the record has no row key.
+	 * @throws IllegalArgumentException If the record is malformed.
+	 */
+	final String parse(final String line, final Map<String, String> columns) {
+		if (spec.getFormat() == Format.CSV) {
+			return parseCsv(line, columns);
+		}
+		return parseJson(line, columns);
+	}
+
+	/**
+	 * Empty fields are treated as absent.
+	 * @param line CSV record.
+	 * @param columns Map to add column names and values to.
+	 * @return Row key of the record.
+	 */
+	private final String parseCsv(final String line,
+			final Map<String, String> columns) {
+		final List<String> fields = splitCsv(line, spec.getDelimiter());
+		if (rowKeyIndex >= fields.size()) {
+			return null;
+		}
+
+		for (int i = 0; i < fieldIndexes.length; i ++) {
+			if (fieldIndexes[i] < fields.size()) {
+				final String value = fields.get(fieldIndexes[i]);
+				if (!value.isEmpty()) {
+					columns.put(columnNames[i], value);
+				}
+			}
+		}
+		final String rowKey = fields.get(rowKeyIndex);
+		return rowKey.isEmpty() ? null : rowKey;
+	}
+
+	/**
+	 * JSON nulls are treated as absent.
+	 * @param line JSON record.
+	 * @param columns Map to add column names and values to.
+	 * @return Row key of the record.
+	 */
+	private final String parseJson(final String line,
+			final Map<String, String> columns) {
+		final Map<String, String> record = parseJsonObject(line);
+		final Map<String, String> mapping = spec.getColumns();
+
+		if (mapping.isEmpty()) {
+			final Iterator<Entry<String, String>> iter =
+					record.entrySet().iterator();
+			while (iter.hasNext()) {
+				final Entry<String, String> entry = iter.next();
+				if (entry.getValue() != null
+						&& !entry.getKey().equals(spec.getRowKeyField())) {
+					columns.put(entry.getKey(), entry.getValue());
+				}
+			}
+		} else {
+			final Iterator<Entry<String, String>> iter =
+					mapping.entrySet().iterator();
+			while (iter.hasNext()) {
+				final Entry<String, String> entry = iter.next();
+				final String value = record.get(entry.getKey());
+				if (value != null) {
+					columns.put(entry.getValue(), value);
+				}
+			}
+		}
+		return record.get(spec.getRowKeyField());
+	}
+
+	/**
+	 * @param line Delimiter separated record. Fields may be quoted with
+	 * '"', with embedded quotes doubled.
+	 * @param delimiter Field delimiter.
+	 * @return Field values in order.
+	 */
+	static final List<String> splitCsv(final String line, final char delimiter) {
+		final List<String> fields = new ArrayList<>();
+		final StringBuilder field = new StringBuilder();
+		final int length = line.length();
+		boolean quoted = false;
+
+		for (int i = 0; i < length; i ++) {
+			final char c = line.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					field.append(c);
+				} else if (i + 1 < length && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i ++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == delimiter) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+
+		if (quoted) {
+			throw new IllegalArgumentException("Unterminated quote.");
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	/**
+	 * Parses a flat JSON object. Nested objects and arrays are kept as
+	 * their JSON text, other values as their string form.
+	 * @param line JSON object.
+	 * @return Map of field name to value. Null values for JSON nulls.
+	 * @throws IllegalArgumentException If the line is not a single object.
+	 */
+	static final Map<String, String> parseJsonObject(final String line) {
+		final Map<String, String> record = new HashMap<>();
+		final int[] position = {skipWhitespace(line, 0)};
+		expect(line, position, '{');
+
+		if (peek(line, position) == '}') {
+			position[0] ++;
+		} else {
+			while (true) {
+				final String name = readString(line, position);
+				expect(line, position, ':');
+				record.put(name, readValue(line, position));
+
+				final char c = peek(line, position);
+				position[0] ++;
+				if (c == '}') {
+					break;
+				}
+				if (c != ',') {
+					throw new IllegalArgumentException("Expected ',' at "
+							+ (position[0] - 1));
+				}
+			}
+		}
+
+		if (skipWhitespace(line, position[0]) < line.length()) {
+			throw new IllegalArgumentException("Unexpected content at "
+					+ position[0]);
+		}
+		return record;
+	}
+
+	/**
+	 * @param line JSON text.
+	 * @param position Current position, advanced past the value.
+	 * @return Value as text. Null for JSON null.
+	 */
+	private static final String readValue(final String line,
+			final int[] position) {
+		final char c = peek(line, position);
+		if (c == '"') {
+			return readString(line, position);
+		}
+
+		final int start = position[0];
+		if (c == '{' || c == '[') {
+			int depth = 0;
+			boolean quoted = false;
+			for (int i = start; i < line.length(); i ++) {
+				final char d = line.charAt(i);
+				if (quoted) {
+					if (d == '\\') {
+						i ++;
+					} else if (d == '"') {
+						quoted = false;
+					}
+				} else if (d == '"') {
+					quoted = true;
+				} else if (d == '{' || d == '[') {
+					depth ++;
+				} else if ((d == '}' || d == ']') && -- depth == 0) {
+					position[0] = i + 1;
+					return line.substring(start, i + 1);
+				}
+			}
+			throw new IllegalArgumentException("Unterminated value at " + start);
+		}
+
+		int end = start;
+		while (end < line.length() && ",}] \t\r\n".indexOf(line.charAt(end)) < 0) {
+			end ++;
+		}
+		if (end == start) {
+			throw new IllegalArgumentException("Expected value at " + start);
+		}
+		position[0] = end;
+		final String value = line.substring(start, end);
+		return "null".equals(value) ? null : value;
+	}
+
+	/**
+	 * @param line JSON text.
+	 * @param position Current position, advanced past the string.
+	 * @return Unescaped string value.
+	 */
+	private static final String readString(final String line,
+			final int[] position) {
+		expect(line, position, '"');
+		final StringBuilder value = new StringBuilder();
+		int i = position[0];
+		while (i < line.length()) {
+			final char c = line.charAt(i ++);
+			if (c == '"') {
+				position[0] = i;
+				return value.toString();
+			}
+			if (c != '\\') {
+				value.append(c);
+				continue;
+			}
+			if (i >= line.length()) {
+				break;
+			}
+			final char e = line.charAt(i ++);
+			switch (e) {
+			case 'b': value.append('\b'); break;
+			case 'f': value.append('\f'); break;
+			case 'n': value.append('\n'); break;
+			case 'r': value.append('\r'); break;
+			case 't': value.append('\t'); break;
+			case 'u':
+				if (i + 4 > line.length()) {
+					throw new IllegalArgumentException("Bad escape at " + i);
+				}
+				value.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+				i += 4;
+				break;
+			default: value.append(e);
+			}
+		}
+		throw new IllegalArgumentException("Unterminated string.");
+	}
+
+	/**
+	 * @param line JSON text.
+	 * @param position Current position, advanced past the character.
+	 * @param c Expected character.
+	 */
+	private static final void expect(final String line, final int[] position,
+			final char c) {
+		if (peek(line, position) != c) {
+			throw new IllegalArgumentException("Expected '" + c + "' at "
+					+ position[0]);
+		}
+		position[0] ++;
+	}
+
+	/**
+	 * @param line JSON text.
+	 * @param position Current position, advanced past whitespace.
+	 * @return Next non whitespace character.
+	 */
+	private static final char peek(final String line, final int[] position) {
+		position[0] = skipWhitespace(line, position[0]);
+		if (position[0] >= line.length()) {
+			throw new IllegalArgumentException("Unexpected end of record.");
+		}
+		return line.charAt(position[0]);
+	}
+
+	/**
+	 * @param line Text.
+	 * @param index Start index.
+	 * @return Index of the next non whitespace character.
+	 */
+	private static final int skipWhitespace(final String line, int index) {
+		while (index < line.length()
+				&& Character.isWhitespace(line.charAt(index))) {
+			index ++;
+		}
+		return index;
+	}
+
+}
@@ -0,0 +1,590 @@
+package com.awesome.pro.db.cassandra.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.awesome.pro.db.cassandra.client.BulkLoadSpec.Format;
+import com.awesome.pro.db.cassandra.client.CassandraOperationTracer.OperationType;
+import com.awesome.pro.db.cassandra.references.CassandraClientReferences;
+import com.netflix.astyanax.ColumnListMutation;
+import com.netflix.astyanax.MutationBatch;
+import com.netflix.astyanax.connectionpool.OperationResult;
+import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
+import com.netflix.astyanax.model.ColumnFamily;
+
+/**
+ * Loads CSV or JSON lines files into a column family. The file is split
+ * into line aligned chunks that are memory mapped, parsed and written in
+ * parallel using size bounded mutation batches. Completed chunks are
+ * recorded in a checkpoint file next to the input so that a failed load
+ * can be resumed by invoking it again. A checkpoint is only used if the
+ * key space, column family, chunk size and the size and modification time
+ * of the file are unchanged.
+ * <p>
+ * Row keys must be unique across the file. Records with the same key in
+ * one chunk are merged, but chunks are written concurrently, so the
+ * content of a row repeated in different chunks is undefined and its
+ * index entries may go stale.
+ * @author siddharth.s
+ */
+public class CassandraBulkLoader {
+
+	/**
+	 * Root logger instance.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(
+			CassandraBulkLoader.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Scan buffer size used to find line boundaries.
+	 */
+	private static final int SCAN_BUFFER_SIZE = 8192;
+
+	/**
+	 * Substituted by the decoder for invalid UTF-8.
+	 */
+	private static final char REPLACEMENT_CHARACTER = '\uFFFD';
+
+	/**
+	 * @param keyspaceName Name of the key space to load into.
+	 * @param spec Mapping of records to rows and columns.
+	 * @param fileName Path and name of the file to load.
+	 * @return Number of rows written. -1 if there is an error, in which
+	 * case the load can be resumed from its checkpoint.
+	 */
+	public static final long load(final String keyspaceName,
+			final BulkLoadSpec spec, final String fileName) {
+		final long chunkSize = CassandraClientReferences.CONFIG.getIntegerValue(
+				CassandraClientReferences.PARAMETER_BULK_LOAD_CHUNK_SIZE,
+				CassandraClientReferences.DEFAULT_BULK_LOAD_CHUNK_SIZE) * 1024L * 1024L;
+		final int threads = CassandraClientReferences.CONFIG.getIntegerValue(
+				CassandraClientReferences.PARAMETER_BULK_LOAD_THREADS,
+				CassandraClientReferences.DEFAULT_BULK_LOAD_THREADS);
+		final String checkpointFile = fileName
+				+ CassandraClientReferences.CHECKPOINT_FILE_SUFFIX;
+
+		LOGGER.info("Loading " + fileName + " into " + keyspaceName + '.'
+				+ spec.getColumnFamilyName());
+
+		final RandomAccessFile file;
+		try {
+			file = new RandomAccessFile(fileName, "r");
+		} catch (IOException e) {
+			LOGGER.error("Unable to open file.", e);
+			return -1;
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final FileChannel channel = file.getChannel();
+			final long size = channel.size();
+
+			// Header line of a CSV file names the fields.
+			long start = 0;
+			List<String> fieldNames = spec.getFieldNames();
+			if (spec.getFormat() == Format.CSV && fieldNames == null) {
+				start = findLineStart(channel, 1);
+				final ByteBuffer header = ByteBuffer.allocate((int) start);
+				channel.read(header, 0);
+				header.flip();
+				fieldNames = BulkRecordParser.splitCsv(
+						UTF_8.decode(header).toString().trim(),
+						spec.getDelimiter());
+			}
+			final BulkRecordParser parser = new BulkRecordParser(spec,
+					fieldNames);
+
+			final List<Long> boundaries = getChunkBoundaries(channel, start,
+					chunkSize);
+			final String checkpointHeader = getCheckpointHeader(keyspaceName,
+					spec.getColumnFamilyName(), size,
+					new File(fileName).lastModified(), chunkSize);
+			final Set<Long> completed = readCheckpoint(checkpointFile,
+					checkpointHeader);
+			final BufferedWriter checkpoint = openCheckpoint(checkpointFile,
+					checkpointHeader, completed.isEmpty());
+			final RateLimiter rateLimiter = new RateLimiter(
+					CassandraClientReferences.CONFIG.getIntegerValue(
+							CassandraClientReferences.PARAMETER_BULK_LOAD_ROWS_PER_SECOND,
+							CassandraClientReferences.DEFAULT_BULK_LOAD_ROWS_PER_SECOND));
+			final AtomicLong bytesDone = new AtomicLong();
+			final AtomicLong rowsDone = new AtomicLong();
+
+			final List<Future<Long>> futures = new ArrayList<>();
+			for (int i = 0; i < boundaries.size() - 1; i ++) {
+				final long chunkStart = boundaries.get(i);
+				final long chunkEnd = boundaries.get(i + 1);
+				if (completed.contains(chunkStart)) {
+					bytesDone.addAndGet(chunkEnd - chunkStart);
+					continue;
+				}
+
+				futures.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						final long rows = loadChunk(keyspaceName, spec, parser,
+								channel, chunkStart, chunkEnd, rateLimiter);
+						synchronized (checkpoint) {
+							checkpoint.write(Long.toString(chunkStart));
+							checkpoint.newLine();
+							checkpoint.flush();
+						}
+						LOGGER.info("Loaded " + bytesDone.addAndGet(chunkEnd - chunkStart)
+								+ " of " + size + " bytes, "
+								+ rowsDone.addAndGet(rows) + " rows.");
+						return rows;
+					}
+				}));
+			}
+
+			boolean failed = false;
+			try {
+				for (final Future<Long> future : futures) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						LOGGER.error("Unable to load chunk.", e.getCause());
+						failed = true;
+					}
+				}
+			} finally {
+				checkpoint.close();
+			}
+
+			if (failed) {
+				LOGGER.error("Bulk load incomplete, rerun to resume from "
+						+ checkpointFile);
+				return -1;
+			}
+			new File(checkpointFile).delete();
+			LOGGER.info("Loaded " + rowsDone.get() + " rows from " + fileName);
+			return rowsDone.get();
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.error("Unable to load file.", e);
+			return -1;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.error("Bulk load interrupted.", e);
+			return -1;
+		} finally {
+			executor.shutdownNow();
+			try {
+				file.close();
+			} catch (IOException e) {
+				LOGGER.error("Unable to close file.", e);
+			}
+		}
+	}
+
+	/**
+	 * Maps, parses and writes the lines of one chunk. Records with invalid
+	 * UTF-8 are skipped.
+	 * @return Number of rows written.
+	 */
+	private static final long loadChunk(final String keyspaceName,
+			final BulkLoadSpec spec, final BulkRecordParser parser,
+			final FileChannel channel, final long start, final long end,
+			final RateLimiter rateLimiter)
+					throws IOException, ConnectionException, InterruptedException {
+		final CharBuffer chars = UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE)
+				.decode(
+				channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+		final char[] array = chars.array();
+		final int offset = chars.arrayOffset() + chars.position();
+		final int length = chars.remaining();
+
+		final int batchRows = CassandraClientReferences.CONFIG.getIntegerValue(
+				CassandraClientReferences.PARAMETER_BULK_LOAD_BATCH_ROWS,
+				CassandraClientReferences.DEFAULT_BULK_LOAD_BATCH_ROWS);
+		final int batchBytes = CassandraClientReferences.CONFIG.getIntegerValue(
+				CassandraClientReferences.PARAMETER_BULK_LOAD_BATCH_BYTES,
+				CassandraClientReferences.DEFAULT_BULK_LOAD_BATCH_BYTES);
+
+		final Map<String, Map<String, String>> rows = new LinkedHashMap<>();
+		long written = 0;
+		long skipped = 0;
+		long invalid = 0;
+		int bytes = 0;
+
+		int lineStart = 0;
+		while (lineStart < length) {
+			int lineEnd = lineStart;
+			while (lineEnd < length && array[offset + lineEnd] != '\n') {
+				lineEnd ++;
+			}
+			int trimmedEnd = lineEnd;
+			if (trimmedEnd > lineStart && array[offset + trimmedEnd - 1] == '\r') {
+				trimmedEnd --;
+			}
+
+			if (trimmedEnd > lineStart) {
+				final String line = new String(array, offset + lineStart,
+						trimmedEnd - lineStart);
+				final Map<String, String> columns = new LinkedHashMap<>();
+				String rowKey = null;
+				if (line.indexOf(REPLACEMENT_CHARACTER) >= 0) {
+					invalid ++;
+					if (LOGGER.isDebugEnabled()) {
+						LOGGER.debug("Invalid UTF-8 in record: " + line);
+					}
+				} else {
+					try {
+						rowKey = parser.parse(line, columns);
+					} catch (IllegalArgumentException e) {
+						if (LOGGER.isDebugEnabled()) {
+							LOGGER.debug("Malformed record: " + line, e);
+						}
+					}
+				}
+
+				if (rowKey == null || columns.isEmpty()) {
+					skipped ++;
+				} else {
+					final Map<String, String> row = rows.get(rowKey);
+					if (row == null) {
+						rows.put(rowKey, columns);
+					} else {
+						row.putAll(columns);
+					}
+					bytes += getEncodedLength(rowKey, columns);
+					if (rows.size() >= batchRows || bytes >= batchBytes) {
+						written += flush(keyspaceName, spec.getColumnFamilyName(),
+								rows, rateLimiter);
+						bytes = 0;
+					}
+				}
+			}
+			lineStart = lineEnd + 1;
+		}
+		written += flush(keyspaceName, spec.getColumnFamilyName(), rows,
+				rateLimiter);
+
+		if (invalid > 0) {
+			LOGGER.warn("Skipped " + invalid + " records with invalid UTF-8"
+					+ " between bytes " + start + " and " + end);
+		}
+		if (skipped > invalid) {
+			LOGGER.warn("Skipped " + (skipped - invalid) + " records without row"
+					+ " key or columns between bytes " + start + " and " + end);
+		}
+		return written;
+	}
+
+	/**
+	 * @param rowKey Row key.
+	 * @param columns Column names and values.
+	 * @return UTF-8 encoded length of the row key, column names and values.
+	 */
+	private static final int getEncodedLength(final String rowKey,
+			final Map<String, String> columns) {
+		int length = getEncodedLength(rowKey);
+		final Iterator<Entry<String, String>> iter = columns.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Entry<String, String> entry = iter.next();
+			length += getEncodedLength(entry.getKey())
+					+ getEncodedLength(entry.getValue());
+		}
+		return length;
+	}
+
+	/**
+	 * @param value Text.
+	 * @return UTF-8 encoded length of the text.
+	 */
+	private static final int getEncodedLength(final String value) {
+		int length = 0;
+		for (int i = 0; i < value.length(); i ++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				length ++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c)) {
+				length += 4;
+				i ++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Writes and clears buffered rows, including index updates. Failed
+	 * batches are retried BulkLoadRetries times with doubling backoff.
+	 * @return Number of rows written.
+	 */
+	private static final int flush(final String keyspaceName,
+			final String columnFamilyName,
+			final Map<String, Map<String, String>> rows,
+			final RateLimiter rateLimiter)
+					throws ConnectionException, InterruptedException {
+		final int size = rows.size();
+		if (size == 0) {
+			return 0;
+		}
+		rateLimiter.acquire(size);
+
+		final MutationBatch mutationBatch = CassandraClientManager
+				.getKeyspace(keyspaceName).prepareMutationBatch();
+		final ColumnFamily<String, String> columnFamily =
+				CassandraClientManager.getColumnFamily(columnFamilyName);
+
+		final Iterator<Entry<String, Map<String, String>>> iter =
+				rows.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Entry<String, Map<String, String>> entry = iter.next();
+			final ColumnListMutation<String> columnListMutation =
+					mutationBatch.withRow(columnFamily, entry.getKey());
+
+			final Iterator<Entry<String, String>> columnIter =
+					entry.getValue().entrySet().iterator();
+			while (columnIter.hasNext()) {
+				final Entry<String, String> columnEntry = columnIter.next();
+				columnListMutation.putColumn(columnEntry.getKey(),
+						columnEntry.getValue(), null);
+			}
+		}
+
+		final int retries = CassandraClientReferences.CONFIG.getIntegerValue(
+				CassandraClientReferences.PARAMETER_BULK_LOAD_RETRIES,
+				CassandraClientReferences.DEFAULT_BULK_LOAD_RETRIES);
+		long backoff = CassandraClientReferences.CONFIG.getIntegerValue(
+				CassandraClientReferences.PARAMETER_BULK_LOAD_RETRY_BACKOFF,
+				CassandraClientReferences.DEFAULT_BULK_LOAD_RETRY_BACKOFF);
+		boolean indexed = false;
+
+		for (int attempt = 0; ; attempt ++) {
+			final long start = System.nanoTime();
+			OperationResult<?> result = null;
+			try {
+				// Index updates are added once, a failed batch keeps its mutations.
+				if (!indexed) {
+					if (CassandraIndexManager.addIndexMutations(keyspaceName,
+							mutationBatch, columnFamilyName, rows)) {
+						mutationBatch.withAtomicBatch(true);
+					}
+					indexed = true;
+				}
+				result = mutationBatch.execute();
+				break;
+			} catch (ConnectionException e) {
+				if (attempt >= retries) {
+					throw e;
+				}
+				LOGGER.warn("Retrying batch of " + size + " rows in "
+						+ backoff + " ms.", e);
+			} finally {
+				CassandraOperationTracer.trace(OperationType.BULK_LOAD, keyspaceName,
+						columnFamilyName, null, size, result, start);
+			}
+			TimeUnit.MILLISECONDS.sleep(backoff);
+			backoff *= 2;
+		}
+		rows.clear();
+		return size;
+	}
+
+	/**
+	 * @param channel File to split.
+	 * @param start Offset of the first record.
+	 * @param chunkSize Approximate size of each chunk in bytes.
+	 * @return Chunk start offsets, each at the start of a line, followed
+	 * by the file size.
+	 */
+	private static final List<Long> getChunkBoundaries(final FileChannel channel,
+			final long start, final long chunkSize) throws IOException {
+		final long size = channel.size();
+		final List<Long> boundaries = new ArrayList<>();
+		boundaries.add(start);
+
+		long position = start + chunkSize;
+		while (position < size) {
+			final long lineStart = findLineStart(channel, position);
+			if (lineStart >= size) {
+				break;
+			}
+			boundaries.add(lineStart);
+			position = lineStart + chunkSize;
+		}
+		boundaries.add(size);
+		return boundaries;
+	}
+
+	/**
+	 * @param channel File to scan.
+	 * @param position Offset to scan from.
+	 * @return Offset of the first line starting at or after the position.
+	 */
+	private static final long findLineStart(final FileChannel channel,
+			final long position) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		long offset = position - 1;
+		while (true) {
+			buffer.clear();
+			final int read = channel.read(buffer, offset);
+			if (read <= 0) {
+				return channel.size();
+			}
+			for (int i = 0; i < read; i ++) {
+				if (buffer.get(i) == '\n') {
+					return offset + i + 1;
+				}
+			}
+			offset += read;
+		}
+	}
+
+	/**
+	 * @param keyspaceName Name of the key space to load into.
+	 * @param columnFamilyName Name of the column family to load into.
+	 * @param size Size of the file in bytes.
+	 * @param lastModified Modification time of the file.
+	 * @param chunkSize Chunk size of the current load.
+	 * @return First line of the checkpoint file for the current load.
+	 */
+	private static final String getCheckpointHeader(final String keyspaceName,
+			final String columnFamilyName, final long size,
+			final long lastModified, final long chunkSize) {
+		return keyspaceName + '\t' + columnFamilyName + '\t' + size + '\t'
+				+ lastModified + '\t' + chunkSize;
+	}
+
+	/**
+	 * @param checkpointFile Path and name of the checkpoint file.
+	 * @param header Checkpoint header of the current load.
+	 * @return Start offsets of completed chunks. Empty if there is no
+	 * checkpoint or it was written for a different load.
+	 */
+	private static final Set<Long> readCheckpoint(final String checkpointFile,
+			final String header) throws IOException {
+		final Set<Long> completed = new HashSet<>();
+		if (!new File(checkpointFile).exists()) {
+			return completed;
+		}
+
+		final BufferedReader reader = new BufferedReader(
+				new FileReader(checkpointFile));
+		try {
+			if (!header.equals(reader.readLine())) {
+				LOGGER.warn("Ignoring checkpoint of a different load: "
+						+ checkpointFile);
+				return completed;
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty()) {
+					completed.add(Long.parseLong(line));
+				}
+			}
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Ignoring malformed checkpoint: " + checkpointFile);
+			completed.clear();
+		} finally {
+			reader.close();
+		}
+
+		if (!completed.isEmpty()) {
+			LOGGER.info("Resuming with " + completed.size()
+					+ " completed chunks from " + checkpointFile);
+		}
+		return completed;
+	}
+
+	/**
+	 * @param checkpointFile Path and name of the checkpoint file.
+	 * @param header Checkpoint header of the current load.
+	 * @param truncate Whether to start a new checkpoint.
+	 * @return Writer appending completed chunk offsets.
+	 */
+	private static final BufferedWriter openCheckpoint(
+			final String checkpointFile, final String header,
+			final boolean truncate) throws IOException {
+		final BufferedWriter writer = new BufferedWriter(
+				new FileWriter(checkpointFile, !truncate));
+		if (truncate) {
+			writer.write(header);
+			writer.newLine();
+			writer.flush();
+		}
+		return writer;
+	}
+
+	/**
+	 * Limits the rate of written rows across loader threads.
+	 */
+	private static final class RateLimiter {
+
+		/**
+		 * Interval between rows in nanoseconds. Zero if unlimited.
+		 */
+		private final long interval;
+
+		/**
+		 * Time at which the next rows may be written.
+		 */
+		private long next = System.nanoTime();
+
+		/**
+		 * @param rowsPerSecond Maximum rows per second, zero if unlimited.
+		 */
+		private RateLimiter(final int rowsPerSecond) {
+			interval = rowsPerSecond <= 0 ? 0
+					: TimeUnit.SECONDS.toNanos(1) / rowsPerSecond;
+		}
+
+		/**
+		 * Blocks until the specified number of rows may be written.
+		 * @param rows Number of rows to be written.
+		 */
+		private final void acquire(final int rows) throws InterruptedException {
+			if (interval == 0) {
+				return;
+			}
+
+			final long wait;
+			synchronized (this) {
+				final long now = System.nanoTime();
+				if (next < now) {
+					next = now;
+				}
+				wait = next - now;
+				next += rows * interval;
+			}
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+
+	}
+
+}
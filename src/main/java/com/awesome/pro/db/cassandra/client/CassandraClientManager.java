@@ -40,6 +40,7 @@ public class CassandraClientManager {
 	 */
 	public static final void initialize(final String configFile) {
 		CassandraClientReferences.initialize(configFile);
+		CassandraOperationTracer.initialize();
 		LOGGER.info("Intialized Cassandra client configurations.");
 	}
 
@@ -54,6 +55,7 @@ public class CassandraClientManager {
 			final AstyanaxContext<Keyspace> context = iter.next();
 			context.shutdown();
 		}
+		CassandraOperationTracer.shutdown();
 	}
 
 	/**
@@ -0,0 +1,679 @@
+package com.awesome.pro.db.cassandra.client;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.awesome.pro.db.cassandra.client.CassandraOperationTracer.OperationType;
+import com.awesome.pro.db.cassandra.references.CassandraClientReferences;
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.MutationBatch;
+import com.netflix.astyanax.RowCallback;
+import com.netflix.astyanax.connectionpool.OperationResult;
+import com.netflix.astyanax.connectionpool.exceptions.BadRequestException;
+import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
+import com.netflix.astyanax.model.Column;
+import com.netflix.astyanax.model.ColumnFamily;
+import com.netflix.astyanax.model.ColumnList;
+import com.netflix.astyanax.model.Row;
+import com.netflix.astyanax.model.Rows;
+
+/**
+ * Maintains client side inverted indexes on column values.
+ * Each indexed column family is backed by an index column family
+ * whose row key is the column name and value, and whose column names
+ * are the row keys of the matching rows. Declared indexes are stored in
+ * a metadata row of the index column family, so every client process
+ * maintains them once the declaration has been loaded.
+ * <p>
+ * Index maintenance reads the current value before writing the new one,
+ * so concurrent writers to the same row can leave stale entries behind.
+ * Queries verify rows against their current value and delete such entries.
+ * @author siddharth.s
+ */
+public class CassandraIndexManager {
+
+	/**
+	 * Map of key space and column family name to indexed column names.
+	 */
+	private static final Map<String, Set<String>> INDEXES =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * Map of key space and column family name to time at which index
+	 * declarations were last loaded from Cassandra.
+	 */
+	private static final Map<String, Long> LOADED = new ConcurrentHashMap<>();
+
+	/**
+	 * Map of key space and column family name to lock guarding the load
+	 * of its index declarations.
+	 */
+	private static final ConcurrentHashMap<String, Object> LOCKS =
+			new ConcurrentHashMap<>();
+
+	/**
+	 * Root logger instance.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(
+			CassandraIndexManager.class);
+
+	/**
+	 * Registers an index on a column whose index column family already
+	 * exists, and stores the declaration for other client processes.
+	 * @param keyspaceName Name of the key space.
+	 * @param columnFamilyName Name of the indexed column family.
+	 * @param columnName Name of the column to be indexed.
+	 */
+	public static final void declareIndex(final String keyspaceName,
+			final String columnFamilyName, final String columnName) {
+		getRegisteredColumns(getRegistryKey(keyspaceName, columnFamilyName))
+		.add(columnName);
+		final String indexName = getIndexColumnFamilyName(columnFamilyName);
+		final long start = System.nanoTime();
+		OperationResult<?> result = null;
+		try {
+			result = CassandraClientManager.getKeyspace(keyspaceName)
+			.prepareColumnMutation(
+					CassandraClientManager.getColumnFamily(indexName),
+					CassandraClientReferences.INDEX_METADATA_ROW_KEY, columnName)
+					.putValue(CassandraClientReferences.INDEX_COLUMN_VALUE, null)
+					.execute();
+		} catch (ConnectionException e) {
+			LOGGER.error("Unable to store index declaration.", e);
+		} finally {
+			CassandraOperationTracer.trace(OperationType.DECLARE_INDEX,
+					keyspaceName, indexName,
+					CassandraClientReferences.INDEX_METADATA_ROW_KEY, 1,
+					result, start);
+		}
+		LOGGER.info("Declared index on " + keyspaceName + '.'
+				+ columnFamilyName + '.' + columnName);
+	}
+
+	/**
+	 * Registers an index on a column and creates its index column family
+	 * if it does not exist. Existing data is not indexed, see
+	 * {@link #rebuildIndex(String, String, String)}.
+	 * @param keyspaceName Name of the key space.
+	 * @param columnFamilyName Name of the indexed column family.
+	 * @param columnName Name of the column to be indexed.
+	 * @return Reference to the index column family. Null if there is an error.
+	 */
+	public static final ColumnFamily<String, String> createIndex(
+			final String keyspaceName, final String columnFamilyName,
+			final String columnName) {
+		final String indexName = getIndexColumnFamilyName(columnFamilyName);
+		try {
+			if (CassandraClientManager.getKeyspace(keyspaceName)
+					.describeKeyspace().getColumnFamily(indexName) == null) {
+				if (CassandraUtilities.createColumnFamily(
+						keyspaceName, indexName) == null) {
+					return null;
+				}
+			}
+		} catch (ConnectionException e) {
+			LOGGER.error("Unable to describe key space.", e);
+			return null;
+		}
+		declareIndex(keyspaceName, columnFamilyName, columnName);
+		return CassandraClientManager.getColumnFamily(indexName);
+	}
+
+	/**
+	 * Declarations stored by other processes are loaded on first use and
+	 * reloaded every IndexRefreshMillis. Callers wait for the first load.
+	 * @param keyspaceName Name of the key space.
+	 * @param columnFamilyName Name of the column family.
+	 * @return Names of indexed columns. Empty if there are no indexes.
+	 * @throws ConnectionException If declarations have never been loaded
+	 * and cannot be read.
+	 */
+	public static final Set<String> getIndexedColumns(final String keyspaceName,
+			final String columnFamilyName) throws ConnectionException {
+		final String key = getRegistryKey(keyspaceName, columnFamilyName);
+		if (isLoadDue(key)) {
+			Object lock = LOCKS.get(key);
+			if (lock == null) {
+				final Object newLock = new Object();
+				lock = LOCKS.putIfAbsent(key, newLock);
+				if (lock == null) {
+					lock = newLock;
+				}
+			}
+			synchronized (lock) {
+				if (isLoadDue(key)) {
+					loadIndexes(keyspaceName, columnFamilyName, key);
+				}
+			}
+		}
+
+		final Set<String> columns = INDEXES.get(key);
+		if (columns == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(columns);
+	}
+
+	/**
+	 * @param columnFamilyName Name of the indexed column family.
+	 * @return Name of the backing index column family.
+	 */
+	public static final String getIndexColumnFamilyName(
+			final String columnFamilyName) {
+		return columnFamilyName
+				+ CassandraClientReferences.INDEX_COLUMN_FAMILY_SUFFIX;
+	}
+
+	/**
+	 * The column name is prefixed with its length so that keys of
+	 * different column and value pairs cannot collide.
+	 * @param columnName Name of the indexed column.
+	 * @param value Value of the indexed column.
+	 * @return Row key of the index entry.
+	 */
+	public static final String getIndexRowKey(final String columnName,
+			final String value) {
+		return Integer.toString(columnName.length())
+				+ CassandraClientReferences.INDEX_KEY_SEPARATOR + columnName
+				+ CassandraClientReferences.INDEX_KEY_SEPARATOR + value;
+	}
+
+	/**
+	 * Backfills an index from existing data using a parallel scan of
+	 * the column family. Entries for values that rows no longer hold are
+	 * not removed here, they are deleted when a query encounters them.
+	 * @param keyspaceName Name of the key space.
+	 * @param columnFamilyName Name of the indexed column family.
+	 * @param columnName Name of the indexed column.
+	 * @return Number of index entries written. -1 if there is an error.
+	 */
+	public static final long rebuildIndex(final String keyspaceName,
+			final String columnFamilyName, final String columnName) {
+		LOGGER.info("Rebuilding index on " + keyspaceName + '.'
+				+ columnFamilyName + '.' + columnName);
+		final Keyspace keyspace = CassandraClientManager.getKeyspace(keyspaceName);
+		final ColumnFamily<String, String> indexColumnFamily =
+				CassandraClientManager.getColumnFamily(
+						getIndexColumnFamilyName(columnFamilyName));
+		final AtomicLong count = new AtomicLong();
+		final AtomicBoolean failed = new AtomicBoolean();
+
+		try {
+			keyspace.prepareQuery(CassandraClientManager
+					.getColumnFamily(columnFamilyName))
+					.getAllRows()
+					.setRowLimit(CassandraClientReferences.CONFIG.getIntegerValue(
+							CassandraClientReferences.PARAMETER_INDEX_REBUILD_PAGE_SIZE,
+							CassandraClientReferences.DEFAULT_INDEX_REBUILD_PAGE_SIZE))
+					.setConcurrencyLevel(CassandraClientReferences.CONFIG.getIntegerValue(
+							CassandraClientReferences.PARAMETER_INDEX_REBUILD_CONCURRENCY,
+							CassandraClientReferences.DEFAULT_INDEX_REBUILD_CONCURRENCY))
+					.withColumnSlice(columnName)
+					.executeWithCallback(new RowCallback<String, String>() {
+
+						@Override
+						public void success(final Rows<String, String> rows) {
+							final MutationBatch mutationBatch =
+									keyspace.prepareMutationBatch();
+							int size = 0;
+
+							final Iterator<Row<String, String>> iter = rows.iterator();
+							while (iter.hasNext()) {
+								final Row<String, String> row = iter.next();
+								final Column<String> column = row.getColumns()
+										.getColumnByName(columnName);
+								if (column == null) {
+									continue;
+								}
+								mutationBatch.withRow(indexColumnFamily,
+										getIndexRowKey(columnName, column.getStringValue()))
+										.putColumn(row.getKey(),
+												CassandraClientReferences.INDEX_COLUMN_VALUE, null);
+								size ++;
+							}
+
+							if (size == 0) {
+								return;
+							}
+							final long start = System.nanoTime();
+							OperationResult<?> result = null;
+							try {
+								result = mutationBatch.execute();
+								count.addAndGet(size);
+							} catch (ConnectionException e) {
+								LOGGER.error("Unable to write index entries.", e);
+								failed.set(true);
+							} finally {
+								CassandraOperationTracer.trace(OperationType.REBUILD_INDEX,
+										keyspaceName, indexColumnFamily.getName(), null,
+										size, result, start);
+							}
+						}
+
+						@Override
+						public boolean failure(final ConnectionException e) {
+							LOGGER.error("Error in scanning column family.", e);
+							failed.set(true);
+							return false;
+						}
+
+					});
+		} catch (ConnectionException e) {
+			LOGGER.error("Unable to rebuild index.", e);
+			return -1;
+		}
+
+		if (failed.get()) {
+			LOGGER.error("Index rebuild incomplete after writing " + count.get()
+					+ " entries for " + columnFamilyName + '.' + columnName);
+			return -1;
+		}
+		LOGGER.info("Wrote " + count.get() + " index entries for "
+				+ columnFamilyName + '.' + columnName);
+		return count.get();
+	}
+
+	/**
+	 * Deletes index entries found to point at rows that no longer hold
+	 * the indexed value. Each entry is deleted at its own timestamp, so
+	 * that an entry written again since it was read is kept.
+	 * @param keyspaceName Name of the key space.
+	 * @param columnFamilyName Name of the indexed column family.
+	 * @param columnName Name of the indexed column.
+	 * @param value Indexed value.
+	 * @param entries Stale index entries, named by row key.
+	 */
+	static final void removeStaleEntries(final String keyspaceName,
+			final String columnFamilyName, final String columnName,
+			final String value, final List<Column<String>> entries) {
+		final MutationBatch mutationBatch = CassandraClientManager
+				.getKeyspace(keyspaceName).prepareMutationBatch();
+		final ColumnFamily<String, String> indexColumnFamily =
+				CassandraClientManager.getColumnFamily(
+						getIndexColumnFamilyName(columnFamilyName));
+		final String indexRowKey = getIndexRowKey(columnName, value);
+
+		final Iterator<Column<String>> iter = entries.iterator();
+		while (iter.hasNext()) {
+			final Column<String> entry = iter.next();
+			mutationBatch.withRow(indexColumnFamily, indexRowKey)
+			.setTimestamp(entry.getTimestamp())
+			.deleteColumn(entry.getName());
+		}
+
+		final long start = System.nanoTime();
+		OperationResult<?> result = null;
+		try {
+			result = mutationBatch.execute();
+			LOGGER.info("Removed " + entries.size() + " stale index entries for "
+					+ columnFamilyName + '.' + columnName);
+		} catch (ConnectionException e) {
+			LOGGER.error("Unable to remove stale index entries.", e);
+		} finally {
+			CassandraOperationTracer.trace(OperationType.REMOVE_STALE_INDEX,
+					keyspaceName, indexColumnFamily.getName(), indexRowKey,
+					entries.size(), result, start);
+		}
+	}
+
+	/**
+	 * Adds index updates for the specified values to a mutation batch.
+	 * Stale entries for overwritten values are removed.
+	 * @param keyspaceName Name of the key space.
+	 * @param mutationBatch Batch to add the index mutations to.
+	 * @param values Key is pair of column family name and row key.
+	 * Value is map of column name to corresponding value.
+	 * @return Whether any index mutation was added.
+	 * @throws ConnectionException If current values cannot be read.
+	 */
+	static final boolean addIndexMutations(final String keyspaceName,
+			final MutationBatch mutationBatch,
+			final Map<Entry<String, String>, Map<String, String>> values)
+					throws ConnectionException {
+		boolean added = false;
+		final Iterator<Entry<String, Map<String, Map<String, String>>>> iter =
+				groupByColumnFamily(values).entrySet().iterator();
+		while (iter.hasNext()) {
+			final Entry<String, Map<String, Map<String, String>>> entry =
+					iter.next();
+			added |= addIndexMutations(keyspaceName, mutationBatch,
+					entry.getKey(), entry.getValue());
+		}
+		return added;
+	}
+
+	/**
+	 * Adds index updates for the specified values to a mutation batch.
+	 * Stale entries for overwritten values are removed.
+	 * @param keyspaceName Name of the key space.
+	 * @param mutationBatch Batch to add the index mutations to.
+	 * @param columnFamilyName Name of the column family being written.
+	 * @param values Map of row key to map of column name and value.
+	 * @return Whether any index mutation was added.
+	 * @throws ConnectionException If current values cannot be read.
+	 */
+	static final boolean addIndexMutations(final String keyspaceName,
+			final MutationBatch mutationBatch, final String columnFamilyName,
+			final Map<String, Map<String, String>> values)
+					throws ConnectionException {
+		final Set<String> indexed = getIndexedColumns(keyspaceName,
+				columnFamilyName);
+		if (indexed.isEmpty()) {
+			return false;
+		}
+
+		final Set<String> rowKeys = new HashSet<>();
+		final Iterator<Entry<String, Map<String, String>>> iter =
+				values.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Entry<String, Map<String, String>> entry = iter.next();
+			if (!Collections.disjoint(indexed, entry.getValue().keySet())) {
+				rowKeys.add(entry.getKey());
+			}
+		}
+		if (rowKeys.isEmpty()) {
+			return false;
+		}
+
+		final ColumnFamily<String, String> indexColumnFamily =
+				CassandraClientManager.getColumnFamily(
+						getIndexColumnFamilyName(columnFamilyName));
+		final Rows<String, String> current = queryIndexedColumns(keyspaceName,
+				columnFamilyName, rowKeys, indexed);
+
+		final Iterator<String> rowKeyIter = rowKeys.iterator();
+		while (rowKeyIter.hasNext()) {
+			final String rowKey = rowKeyIter.next();
+			final ColumnList<String> oldColumns = getColumns(current, rowKey);
+
+			final Iterator<Entry<String, String>> columnIter =
+					values.get(rowKey).entrySet().iterator();
+			while (columnIter.hasNext()) {
+				final Entry<String, String> columnEntry = columnIter.next();
+				final String column = columnEntry.getKey();
+				if (!indexed.contains(column)) {
+					continue;
+				}
+
+				final Column<String> oldColumn = oldColumns == null ? null
+						: oldColumns.getColumnByName(column);
+				if (oldColumn != null && !oldColumn.getStringValue()
+						.equals(columnEntry.getValue())) {
+					mutationBatch.withRow(indexColumnFamily,
+							getIndexRowKey(column, oldColumn.getStringValue()))
+							.deleteColumn(rowKey);
+				}
+				mutationBatch.withRow(indexColumnFamily,
+						getIndexRowKey(column, columnEntry.getValue()))
+						.putColumn(rowKey,
+								CassandraClientReferences.INDEX_COLUMN_VALUE, null);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds removal of index entries for the specified columns to a
+	 * mutation batch.
+	 * @param keyspaceName Name of the key space.
+	 * @param mutationBatch Batch to add the index mutations to.
+	 * @param columns Key is pair of column family name and row key.
+	 * Value is set of column names being deleted, null for all columns.
+	 * @return Whether any index mutation was added.
+	 * @throws ConnectionException If current values cannot be read.
+	 */
+	static final boolean removeIndexMutations(final String keyspaceName,
+			final MutationBatch mutationBatch,
+			final Map<Entry<String, String>, Set<String>> columns)
+					throws ConnectionException {
+		final Map<String, Map<String, Set<String>>> grouped =
+				new LinkedHashMap<>();
+		final Iterator<Entry<Entry<String, String>, Set<String>>> iter =
+				columns.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Entry<Entry<String, String>, Set<String>> entry = iter.next();
+			Map<String, Set<String>> rows = grouped.get(entry.getKey().getKey());
+			if (rows == null) {
+				rows = new LinkedHashMap<>();
+				grouped.put(entry.getKey().getKey(), rows);
+			}
+			rows.put(entry.getKey().getValue(), entry.getValue());
+		}
+
+		boolean added = false;
+		final Iterator<Entry<String, Map<String, Set<String>>>> groupIter =
+				grouped.entrySet().iterator();
+		while (groupIter.hasNext()) {
+			final Entry<String, Map<String, Set<String>>> entry =
+					groupIter.next();
+			added |= removeIndexMutations(keyspaceName, mutationBatch,
+					entry.getKey(), entry.getValue());
+		}
+		return added;
+	}
+
+	/**
+	 * Adds removal of index entries for the specified columns to a
+	 * mutation batch.
+	 * @param keyspaceName Name of the key space.
+	 * @param mutationBatch Batch to add the index mutations to.
+	 * @param columnFamilyName Name of the column family being deleted from.
+	 * @param columns Map of row key to set of column names being deleted,
+	 * null for all columns.
+	 * @return Whether any index mutation was added.
+	 * @throws ConnectionException If current values cannot be read.
+	 */
+	static final boolean removeIndexMutations(final String keyspaceName,
+			final MutationBatch mutationBatch, final String columnFamilyName,
+			final Map<String, Set<String>> columns)
+					throws ConnectionException {
+		final Set<String> indexed = getIndexedColumns(keyspaceName,
+				columnFamilyName);
+		if (indexed.isEmpty()) {
+			return false;
+		}
+
+		final Set<String> rowKeys = new HashSet<>();
+		final Iterator<Entry<String, Set<String>>> iter =
+				columns.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Entry<String, Set<String>> entry = iter.next();
+			if (entry.getValue() == null
+					|| !Collections.disjoint(indexed, entry.getValue())) {
+				rowKeys.add(entry.getKey());
+			}
+		}
+		if (rowKeys.isEmpty()) {
+			return false;
+		}
+
+		final ColumnFamily<String, String> indexColumnFamily =
+				CassandraClientManager.getColumnFamily(
+						getIndexColumnFamilyName(columnFamilyName));
+		final Rows<String, String> current = queryIndexedColumns(keyspaceName,
+				columnFamilyName, rowKeys, indexed);
+
+		boolean added = false;
+		final Iterator<String> rowKeyIter = rowKeys.iterator();
+		while (rowKeyIter.hasNext()) {
+			final String rowKey = rowKeyIter.next();
+			final ColumnList<String> oldColumns = getColumns(current, rowKey);
+			if (oldColumns == null) {
+				continue;
+			}
+
+			final Set<String> deleted = columns.get(rowKey);
+			final Iterator<Column<String>> columnIter = oldColumns.iterator();
+			while (columnIter.hasNext()) {
+				final Column<String> column = columnIter.next();
+				if (deleted != null && !deleted.contains(column.getName())) {
+					continue;
+				}
+				mutationBatch.withRow(indexColumnFamily,
+						getIndexRowKey(column.getName(), column.getStringValue()))
+						.deleteColumn(rowKey);
+				added = true;
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * @param keyspaceName Name of the key space.
+	 * @param columnFamilyName Name of the column family.
+	 * @param rowKeys Row keys to query for.
+	 * @param indexed Indexed column names to retrieve.
+	 * @return Current values of the indexed columns.
+	 * @throws ConnectionException If the query fails.
+	 */
+	private static final Rows<String, String> queryIndexedColumns(
+			final String keyspaceName, final String columnFamilyName,
+			final Set<String> rowKeys, final Set<String> indexed)
+					throws ConnectionException {
+		return CassandraClientManager.getKeyspace(keyspaceName)
+				.prepareQuery(CassandraClientManager
+						.getColumnFamily(columnFamilyName))
+						.getKeySlice(rowKeys)
+						.withColumnSlice(indexed)
+						.execute().getResult();
+	}
+
+	/**
+	 * @param rows Query result.
+	 * @param rowKey Row key to look up.
+	 * @return Columns of the row. Null if the row is absent.
+	 */
+	private static final ColumnList<String> getColumns(
+			final Rows<String, String> rows, final String rowKey) {
+		final Row<String, String> row = rows.getRow(rowKey);
+		if (row == null) {
+			return null;
+		}
+		return row.getColumns();
+	}
+
+	/**
+	 * @param values Key is pair of column family name and row key.
+	 * Value is map of column name to corresponding value.
+	 * @return Map of column family name to map of row key to columns.
+	 */
+	private static final Map<String, Map<String, Map<String, String>>> groupByColumnFamily(
+			final Map<Entry<String, String>, Map<String, String>> values) {
+		final Map<String, Map<String, Map<String, String>>> grouped =
+				new LinkedHashMap<>();
+		final Iterator<Entry<Entry<String, String>, Map<String, String>>> iter =
+				values.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Entry<Entry<String, String>, Map<String, String>> entry =
+					iter.next();
+			Map<String, Map<String, String>> rows =
+					grouped.get(entry.getKey().getKey());
+			if (rows == null) {
+				rows = new LinkedHashMap<>();
+				grouped.put(entry.getKey().getKey(), rows);
+			}
+			rows.put(entry.getKey().getValue(), entry.getValue());
+		}
+		return grouped;
+	}
+
+	/**
+	 * @param key Key for the index registry.
+	 * @return Whether index declarations are to be loaded.
+	 */
+	private static final boolean isLoadDue(final String key) {
+		final Long loaded = LOADED.get(key);
+		return loaded == null || System.currentTimeMillis() - loaded
+				> CassandraClientReferences.CONFIG.getIntegerValue(
+						CassandraClientReferences.PARAMETER_INDEX_REFRESH,
+						CassandraClientReferences.DEFAULT_INDEX_REFRESH);
+	}
+
+	/**
+	 * Loads index declarations stored in the metadata row of the index
+	 * column family. Column families without an index column family
+	 * have no declarations. Other failures are retried on the next call;
+	 * they are thrown if declarations have never been loaded, otherwise
+	 * the previously loaded declarations remain in use.
+	 * @param keyspaceName Name of the key space.
+	 * @param columnFamilyName Name of the column family.
+	 * @param key Key for the index registry.
+	 * @throws ConnectionException If declarations have never been loaded
+	 * and cannot be read.
+	 */
+	private static final void loadIndexes(final String keyspaceName,
+			final String columnFamilyName, final String key)
+					throws ConnectionException {
+		final String indexName = getIndexColumnFamilyName(columnFamilyName);
+		final long start = System.nanoTime();
+		OperationResult<ColumnList<String>> result = null;
+		try {
+			result = CassandraClientManager.getKeyspace(keyspaceName)
+					.prepareQuery(CassandraClientManager.getColumnFamily(indexName))
+					.getKey(CassandraClientReferences.INDEX_METADATA_ROW_KEY)
+					.execute();
+			if (!result.getResult().isEmpty()) {
+				getRegisteredColumns(key).addAll(
+						result.getResult().getColumnNames());
+			}
+		} catch (BadRequestException e) {
+			// Index column family does not exist.
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("No index declarations for " + key, e);
+			}
+		} catch (ConnectionException e) {
+			if (!LOADED.containsKey(key)) {
+				throw e;
+			}
+			LOGGER.warn("Unable to reload index declarations for " + key, e);
+			return;
+		} finally {
+			CassandraOperationTracer.trace(OperationType.LOAD_INDEXES,
+					keyspaceName, indexName,
+					CassandraClientReferences.INDEX_METADATA_ROW_KEY, 1,
+					result, start);
+		}
+		LOADED.put(key, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param key Key for the index registry.
+	 * @return Registered column names, created if absent.
+	 */
+	private static final Set<String> getRegisteredColumns(final String key) {
+		Set<String> columns = INDEXES.get(key);
+		if (columns == null) {
+			synchronized (CassandraIndexManager.class) {
+				columns = INDEXES.get(key);
+				if (columns == null) {
+					columns = Collections.newSetFromMap(
+							new ConcurrentHashMap<String, Boolean>());
+					INDEXES.put(key, columns);
+				}
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * @param keyspaceName Name of the key space.
+	 * @param columnFamilyName Name of the column family.
+	 * @return Key for the index registry.
+	 */
+	private static final String getRegistryKey(final String keyspaceName,
+			final String columnFamilyName) {
+		return keyspaceName + '.' + columnFamilyName;
+	}
+
+}
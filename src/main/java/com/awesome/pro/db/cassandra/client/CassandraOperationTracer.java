@@ -0,0 +1,293 @@
+package com.awesome.pro.db.cassandra.client;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+
+import com.awesome.pro.db.cassandra.references.CassandraClientReferences;
+import com.netflix.astyanax.connectionpool.Host;
+import com.netflix.astyanax.connectionpool.OperationResult;
+
+/**
+ * Records latency of Cassandra operations. Operations slower than the
+ * configured threshold are written asynchronously to the slow query log
+ * and a sample of all operations is kept in a ring buffer for dumps.
+ * Tracing is disabled until {@link #initialize()} is invoked.
+ * @author siddharth.s
+ */
+public class CassandraOperationTracer {
+
+	/**
+	 * Types of traced operations.
+	 */
+	public static enum OperationType {
+		CREATE_KEYSPACE, DROP_KEYSPACE, CREATE_COLUMN_FAMILY,
+		DROP_COLUMN_FAMILY, QUERY_ROW, QUERY_COLUMN, QUERY_ALL_ROWS,
+		QUERY_BY_INDEX, STORE, DELETE, DELETE_ROWS, REBUILD_INDEX, BULK_LOAD,
+		DECLARE_INDEX, LOAD_INDEXES, REMOVE_STALE_INDEX
+	}
+
+	/**
+	 * Trace of a single operation. Formatting is deferred to
+	 * {@link #toString()} so that it happens off the calling thread.
+	 */
+	public static final class TraceRecord {
+
+		private final long timestamp;
+		private final OperationType type;
+		private final String keyspaceName;
+		private final String columnFamilyName;
+		private final int rowKeyHash;
+		private final int batchSize;
+		private final Host host;
+		private final long latencyNanos;
+		private final boolean success;
+
+		private TraceRecord(final OperationType type, final String keyspaceName,
+				final String columnFamilyName, final int rowKeyHash,
+				final int batchSize, final Host host, final long latencyNanos,
+				final boolean success) {
+			this.timestamp = System.currentTimeMillis();
+			this.type = type;
+			this.keyspaceName = keyspaceName;
+			this.columnFamilyName = columnFamilyName;
+			this.rowKeyHash = rowKeyHash;
+			this.batchSize = batchSize;
+			this.host = host;
+			this.latencyNanos = latencyNanos;
+			this.success = success;
+		}
+
+		/**
+		 * @return Latency of the operation in milliseconds.
+		 */
+		public final long getLatencyMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+		}
+
+		@Override
+		public final String toString() {
+			return new StringBuilder(128)
+			.append(timestamp).append(',')
+			.append(type).append(',')
+			.append(keyspaceName).append(',')
+			.append(columnFamilyName).append(',')
+			.append(Integer.toHexString(rowKeyHash)).append(',')
+			.append(batchSize).append(',')
+			.append(host == null ? null : host.getHostName()).append(',')
+			.append(getLatencyMillis()).append(',')
+			.append(success ? "OK" : "FAILED")
+			.toString();
+		}
+
+	}
+
+	/**
+	 * Root logger instance.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(
+			CassandraOperationTracer.class);
+
+	/**
+	 * Dedicated logger for slow operations.
+	 */
+	private static final Logger SLOW_QUERY_LOGGER = Logger.getLogger(
+			CassandraClientReferences.SLOW_QUERY_LOGGER_NAME);
+
+	/**
+	 * Slow query records dropped because the log queue was full.
+	 */
+	private static final AtomicLong DROPPED = new AtomicLong();
+
+	/**
+	 * Write position in the sample ring buffer.
+	 */
+	private static final AtomicLong CURSOR = new AtomicLong();
+
+	/**
+	 * Ring buffer of sampled operations. Null while tracing is disabled.
+	 */
+	private static volatile AtomicReferenceArray<TraceRecord> SAMPLES = null;
+
+	/**
+	 * Single thread writing the slow query log.
+	 */
+	private static volatile ThreadPoolExecutor WRITER = null;
+
+	private static volatile long THRESHOLD_NANOS = Long.MAX_VALUE;
+	private static volatile int SAMPLE_RATE = 0;
+
+	/**
+	 * Enables tracing using the loaded client configurations.
+	 */
+	public static final synchronized void initialize() {
+		if (WRITER != null) {
+			return;
+		}
+
+		THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(
+				CassandraClientReferences.CONFIG.getIntegerValue(
+						CassandraClientReferences.PARAMETER_SLOW_QUERY_THRESHOLD,
+						CassandraClientReferences.DEFAULT_SLOW_QUERY_THRESHOLD));
+		SAMPLE_RATE = CassandraClientReferences.CONFIG.getIntegerValue(
+				CassandraClientReferences.PARAMETER_TRACE_SAMPLE_RATE,
+				CassandraClientReferences.DEFAULT_TRACE_SAMPLE_RATE);
+		SAMPLES = new AtomicReferenceArray<>(
+				CassandraClientReferences.CONFIG.getIntegerValue(
+						CassandraClientReferences.PARAMETER_TRACE_BUFFER_SIZE,
+						CassandraClientReferences.DEFAULT_TRACE_BUFFER_SIZE));
+
+		WRITER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(
+						CassandraClientReferences.CONFIG.getIntegerValue(
+								CassandraClientReferences.PARAMETER_SLOW_QUERY_QUEUE_SIZE,
+								CassandraClientReferences.DEFAULT_SLOW_QUERY_QUEUE_SIZE)),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable,
+								CassandraClientReferences.TRACE_THREAD_NAME);
+						thread.setDaemon(true);
+						return thread;
+					}
+				},
+				new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(final Runnable runnable,
+							final ThreadPoolExecutor executor) {
+						DROPPED.incrementAndGet();
+					}
+				});
+		LOGGER.info("Initialized Cassandra operation tracing.");
+	}
+
+	/**
+	 * Disables tracing and flushes pending slow query records.
+	 */
+	public static final synchronized void shutdown() {
+		if (WRITER == null) {
+			return;
+		}
+
+		final ThreadPoolExecutor writer = WRITER;
+		WRITER = null;
+		SAMPLES = null;
+		writer.shutdown();
+		try {
+			writer.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (DROPPED.get() > 0) {
+			LOGGER.warn("Dropped " + DROPPED.get() + " slow query records.");
+		}
+	}
+
+	/**
+	 * Records an operation. Never blocks the caller.
+	 * @param type Type of operation.
+	 * @param keyspaceName Name of the key space.
+	 * @param columnFamilyName Name of the column family, null if not applicable.
+	 * @param rowKey Row key, null for multi row operations.
+	 * @param batchSize Number of rows in the operation.
+	 * @param result Result of the operation, null if it failed.
+	 * @param startNanos Value of {@link System#nanoTime()} when the
+	 * operation started.
+	 */
+	public static final void trace(final OperationType type,
+			final String keyspaceName, final String columnFamilyName,
+			final String rowKey, final int batchSize,
+			final OperationResult<?> result, final long startNanos) {
+		final ThreadPoolExecutor writer = WRITER;
+		final AtomicReferenceArray<TraceRecord> samples = SAMPLES;
+		if (writer == null || samples == null) {
+			return;
+		}
+
+		final long latency = System.nanoTime() - startNanos;
+		final boolean slow = latency >= THRESHOLD_NANOS || result == null;
+		final boolean sampled = SAMPLE_RATE > 0
+				&& ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0;
+		if (!slow && !sampled) {
+			return;
+		}
+
+		final TraceRecord record = new TraceRecord(type, keyspaceName,
+				columnFamilyName, rowKey == null ? 0 : rowKey.hashCode(),
+				batchSize, result == null ? null : result.getHost(),
+				latency, result != null);
+
+		if (sampled) {
+			samples.set((int) (CURSOR.getAndIncrement() % samples.length()),
+					record);
+		}
+		if (slow) {
+			writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					SLOW_QUERY_LOGGER.warn(record);
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return Sampled operations, oldest first. Empty if tracing is disabled.
+	 */
+	public static final List<TraceRecord> getRecentSamples() {
+		final AtomicReferenceArray<TraceRecord> samples = SAMPLES;
+		final List<TraceRecord> records = new ArrayList<>();
+		if (samples == null) {
+			return records;
+		}
+
+		final int length = samples.length();
+		final long cursor = CURSOR.get();
+		for (int i = 0; i < length; i ++) {
+			final TraceRecord record = samples.get(
+					(int) ((cursor + i) % length));
+			if (record != null) {
+				records.add(record);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * @param fileName Path and name of file to write sampled operations to.
+	 */
+	public static final void dumpRecentSamples(final String fileName) {
+		try {
+			final BufferedWriter writer = new BufferedWriter(
+					new FileWriter(fileName, false));
+			for (final TraceRecord record : getRecentSamples()) {
+				writer.write(record.toString());
+				writer.write('\n');
+			}
+			writer.close();
+		} catch (IOException e) {
+			LOGGER.error("Unable to write to file.", e);
+		}
+	}
+
+	/**
+	 * @return Number of slow query records dropped because the
+	 * log queue was full.
+	 */
+	public static final long getDroppedCount() {
+		return DROPPED.get();
+	}
+
+}
@@ -3,6 +3,9 @@ package com.awesome.pro.db.cassandra.client;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -12,16 +15,20 @@ import java.util.Set;
 
 import org.apache.log4j.Logger;
 
+import com.awesome.pro.db.cassandra.client.CassandraOperationTracer.OperationType;
 import com.awesome.pro.db.cassandra.references.CassandraClientReferences;
 import com.netflix.astyanax.ColumnListMutation;
 import com.netflix.astyanax.Keyspace;
 import com.netflix.astyanax.MutationBatch;
+import com.netflix.astyanax.connectionpool.OperationResult;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import com.netflix.astyanax.model.Column;
 import com.netflix.astyanax.model.ColumnFamily;
 import com.netflix.astyanax.model.ColumnList;
 import com.netflix.astyanax.model.Row;
 import com.netflix.astyanax.model.Rows;
+import com.netflix.astyanax.query.RowQuery;
+import com.netflix.astyanax.util.RangeBuilder;
 
 /**
  * General utility methods for Cassandra clients.
@@ -43,12 +50,17 @@ public class CassandraUtilities {
 	 */
 	public static final Keyspace createKeyspace(final String name) {
 		final Keyspace keyspace = CassandraClientManager.getKeyspace(name);
+		final long start = System.nanoTime();
+		OperationResult<?> result = null;
 		try {
-			keyspace.createKeyspaceIfNotExists(
+			result = keyspace.createKeyspaceIfNotExists(
 					CassandraClientReferences.KEYSPACE_CREATION_OPTIONS);
 		} catch (ConnectionException e) {
 			LOGGER.error("Cassandra client error.", e);
 			return null;
+		} finally {
+			CassandraOperationTracer.trace(OperationType.CREATE_KEYSPACE,
+					name, null, null, 0, result, start);
 		}
 
 		return keyspace;
@@ -60,11 +72,16 @@ public class CassandraUtilities {
 	public static final void dropKeyspace(final String name) {
 		LOGGER.info("Dropping key space: " + name);
 		final Keyspace keyspace = CassandraClientManager.getKeyspace(name);
+		final long start = System.nanoTime();
+		OperationResult<?> result = null;
 		try {
-			keyspace.dropKeyspace();
+			result = keyspace.dropKeyspace();
 		} catch (ConnectionException e) {
 			LOGGER.error("Cassandra client error.", e);
 			return;
+		} finally {
+			CassandraOperationTracer.trace(OperationType.DROP_KEYSPACE,
+					name, null, null, 0, result, start);
 		}
 	}
 
@@ -78,14 +95,19 @@ public class CassandraUtilities {
 			final String columnFamilyName) {
 		final ColumnFamily<String, String> columnFamily =
 				CassandraClientManager.getColumnFamily(columnFamilyName);
+		final long start = System.nanoTime();
+		OperationResult<?> result = null;
 		try {
-			CassandraClientManager.getKeyspace(keyspaceName)
+			result = CassandraClientManager.getKeyspace(keyspaceName)
 			.createColumnFamily(columnFamily,
 					CassandraClientReferences.COLUMN_FAMILY_OPTIONS);
 			return columnFamily;
 		} catch (ConnectionException | NullPointerException e) {
 			LOGGER.error("Error in creating column family.", e);
 			return null;
+		} finally {
+			CassandraOperationTracer.trace(OperationType.CREATE_COLUMN_FAMILY,
+					keyspaceName, columnFamilyName, null, 0, result, start);
 		}
 	}
 
@@ -97,11 +119,16 @@ public class CassandraUtilities {
 	 */
 	public static final void dropColumnFamily(final String keyspaceName,
 			final String columnFamilyName) {
+		final long start = System.nanoTime();
+		OperationResult<?> result = null;
 		try {
-			CassandraClientManager.getKeyspace(keyspaceName)
+			result = CassandraClientManager.getKeyspace(keyspaceName)
 			.dropColumnFamily(columnFamilyName);
 		} catch (ConnectionException e) {
 			LOGGER.error("Unable to drop column family.", e);
+		} finally {
+			CassandraOperationTracer.trace(OperationType.DROP_COLUMN_FAMILY,
+					keyspaceName, columnFamilyName, null, 0, result, start);
 		}
 	}
 
@@ -113,14 +140,20 @@ public class CassandraUtilities {
 	 */
 	public static final ColumnList<String> queryRow(final String keyspaceName,
 			final String columnFamilyName, final String rowKey) {
+		final long start = System.nanoTime();
+		OperationResult<ColumnList<String>> result = null;
 		try {
-			return CassandraClientManager.getKeyspace(keyspaceName)
+			result = CassandraClientManager.getKeyspace(keyspaceName)
 					.prepareQuery(CassandraClientManager
 							.getColumnFamily(columnFamilyName))
-							.getKey(rowKey).execute().getResult();
+							.getKey(rowKey).execute();
+			return result.getResult();
 		} catch (ConnectionException | NullPointerException e) {
 			LOGGER.error("Error in executing query.", e);
 			return null;
+		} finally {
+			CassandraOperationTracer.trace(OperationType.QUERY_ROW,
+					keyspaceName, columnFamilyName, rowKey, 1, result, start);
 		}
 	}
 
@@ -134,16 +167,22 @@ public class CassandraUtilities {
 	public static final Column<String> queryRowByColumn(final String keyspaceName,
 			final String columnFamilyName, final String rowKey,
 			final String columnName) {
+		final long start = System.nanoTime();
+		OperationResult<Column<String>> result = null;
 		try {
-			return CassandraClientManager.getKeyspace(keyspaceName)
+			result = CassandraClientManager.getKeyspace(keyspaceName)
 					.prepareQuery(CassandraClientManager
 							.getColumnFamily(columnFamilyName))
 							.getKey(rowKey)
 							.getColumn(columnName)
-							.execute().getResult();
+							.execute();
+			return result.getResult();
 		} catch (ConnectionException | NullPointerException e) {
 			LOGGER.error("Error in executing the query.", e);
 			return null;
+		} finally {
+			CassandraOperationTracer.trace(OperationType.QUERY_COLUMN,
+					keyspaceName, columnFamilyName, rowKey, 1, result, start);
 		}
 	}
 
@@ -154,14 +193,128 @@ public class CassandraUtilities {
 	 */
 	public static final Rows<String, String> queryAllRows(final String keyspaceName,
 			final String columnFamilyName) {
+		final long start = System.nanoTime();
+		OperationResult<Rows<String, String>> result = null;
 		try {
-			return CassandraClientManager.getKeyspace(keyspaceName)
+			result = CassandraClientManager.getKeyspace(keyspaceName)
 					.prepareQuery(CassandraClientManager
 							.getColumnFamily(columnFamilyName))
-							.getAllRows().execute().getResult();
+							.getAllRows().execute();
+			return result.getResult();
 		} catch (ConnectionException | NullPointerException e) {
 			LOGGER.error("Error in executing the query.", e);
 			return null;
+		} finally {
+			CassandraOperationTracer.trace(OperationType.QUERY_ALL_ROWS,
+					keyspaceName, columnFamilyName, null, 0, result, start);
+		}
+	}
+
+	/**
+	 * Looks up rows through a client maintained index, see
+	 * {@link CassandraIndexManager}. The index row is read in pages of
+	 * IndexQueryPageSize entries and the rows of each page are fetched
+	 * with one multi-get. Rows are returned only if their current value
+	 * matches, index entries pointing to rows that no longer match are
+	 * deleted.
+	 * @param keyspaceName Name of the key space.
+	 * @param columnFamilyName Name of the indexed column family.
+	 * @param columnName Name of the indexed column.
+	 * @param value Value of the column to match.
+	 * @return Rows having the specified column value. Null if there is an error.
+	 */
+	public static final List<Row<String, String>> queryByIndex(final String keyspaceName,
+			final String columnFamilyName, final String columnName,
+			final String value) {
+		final List<Row<String, String>> rows = new LinkedList<>();
+		try {
+			if (!CassandraIndexManager.getIndexedColumns(keyspaceName,
+					columnFamilyName).contains(columnName)) {
+				LOGGER.error("No index declared on " + columnFamilyName + '.'
+						+ columnName);
+				return null;
+			}
+
+			final Keyspace keyspace = CassandraClientManager.getKeyspace(keyspaceName);
+			final String indexName = CassandraIndexManager
+					.getIndexColumnFamilyName(columnFamilyName);
+			final String indexRowKey = CassandraIndexManager.getIndexRowKey(
+					columnName, value);
+			final int pageSize = CassandraClientReferences.CONFIG.getIntegerValue(
+					CassandraClientReferences.PARAMETER_INDEX_QUERY_PAGE_SIZE,
+					CassandraClientReferences.DEFAULT_INDEX_QUERY_PAGE_SIZE);
+			final RowQuery<String, String> indexQuery = keyspace
+					.prepareQuery(CassandraClientManager.getColumnFamily(indexName))
+					.getKey(indexRowKey)
+					.withColumnRange(new RangeBuilder().setLimit(pageSize).build())
+					.autoPaginate(true);
+
+			while (true) {
+				final ColumnList<String> matches = queryIndexPage(keyspaceName,
+						indexName, indexRowKey, indexQuery);
+				if (matches.isEmpty()) {
+					break;
+				}
+
+				final long start = System.nanoTime();
+				OperationResult<Rows<String, String>> result = null;
+				try {
+					result = keyspace.prepareQuery(CassandraClientManager
+							.getColumnFamily(columnFamilyName))
+							.getKeySlice(matches.getColumnNames())
+							.execute();
+				} finally {
+					CassandraOperationTracer.trace(OperationType.QUERY_BY_INDEX,
+							keyspaceName, columnFamilyName, null, matches.size(),
+							result, start);
+				}
+
+				final List<Column<String>> stale = new LinkedList<>();
+				final Iterator<Column<String>> iter = matches.iterator();
+				while (iter.hasNext()) {
+					final Column<String> entry = iter.next();
+					final Row<String, String> row = result.getResult()
+							.getRow(entry.getName());
+					final Column<String> column = row == null ? null
+							: row.getColumns().getColumnByName(columnName);
+					if (column != null && value.equals(column.getStringValue())) {
+						rows.add(row);
+					} else {
+						stale.add(entry);
+					}
+				}
+				if (!stale.isEmpty()) {
+					CassandraIndexManager.removeStaleEntries(keyspaceName,
+							columnFamilyName, columnName, value, stale);
+				}
+			}
+		} catch (ConnectionException | NullPointerException e) {
+			LOGGER.error("Error in executing the query.", e);
+			return null;
+		}
+		return rows;
+	}
+
+	/**
+	 * @param keyspaceName Name of the key space.
+	 * @param indexName Name of the index column family.
+	 * @param indexRowKey Row key of the index entry.
+	 * @param indexQuery Auto paginating query on the index row.
+	 * @return Next page of index entries. Empty when all are read.
+	 * @throws ConnectionException If the query fails.
+	 */
+	private static final ColumnList<String> queryIndexPage(
+			final String keyspaceName, final String indexName,
+			final String indexRowKey, final RowQuery<String, String> indexQuery)
+					throws ConnectionException {
+		final long start = System.nanoTime();
+		OperationResult<ColumnList<String>> result = null;
+		try {
+			result = indexQuery.execute();
+			return result.getResult();
+		} finally {
+			CassandraOperationTracer.trace(OperationType.QUERY_ROW, keyspaceName,
+					indexName, indexRowKey, 1, result, start);
 		}
 	}
 
@@ -178,13 +331,30 @@ public class CassandraUtilities {
 			final String columnFamilyName, final String rowKey,
 			final String columnName, final String value) {
 		try {
-			CassandraClientManager.getKeyspace(keyspaceName)
+			if (CassandraIndexManager.getIndexedColumns(keyspaceName,
+					columnFamilyName).contains(columnName)) {
+				storeData(keyspaceName, columnFamilyName, rowKey,
+						Collections.singletonMap(columnName, value));
+				return;
+			}
+		} catch (ConnectionException e) {
+			LOGGER.error("Unable to store data.", e);
+			return;
+		}
+
+		final long start = System.nanoTime();
+		OperationResult<?> result = null;
+		try {
+			result = CassandraClientManager.getKeyspace(keyspaceName)
 			.prepareColumnMutation(
 					CassandraClientManager.getColumnFamily(columnFamilyName),
 					rowKey, columnName)
 					.putValue(value, null).execute();
 		} catch (ConnectionException e) {
 			LOGGER.error("Unable to store data.", e);
+		} finally {
+			CassandraOperationTracer.trace(OperationType.STORE,
+					keyspaceName, columnFamilyName, rowKey, 1, result, start);
 		}
 	}
 
@@ -221,10 +391,19 @@ public class CassandraUtilities {
 			}
 		}
 
+		final long start = System.nanoTime();
+		OperationResult<?> result = null;
 		try {
-			mutationBatch.execute();
+			if (CassandraIndexManager.addIndexMutations(keyspaceName,
+					mutationBatch, values)) {
+				mutationBatch.withAtomicBatch(true);
+			}
+			result = mutationBatch.execute();
 		} catch (ConnectionException e) {
 			LOGGER.error("Unable to execute batch mutation.", e);
+		} finally {
+			CassandraOperationTracer.trace(OperationType.STORE,
+					keyspaceName, null, null, values.size(), result, start);
 		}
 	}
 
@@ -261,10 +440,19 @@ public class CassandraUtilities {
 			}
 		}
 
+		final long start = System.nanoTime();
+		OperationResult<?> result = null;
 		try {
-			mutationBatch.execute();
+			if (CassandraIndexManager.addIndexMutations(keyspaceName,
+					mutationBatch, columnFamilyName, values)) {
+				mutationBatch.withAtomicBatch(true);
+			}
+			result = mutationBatch.execute();
 		} catch (ConnectionException e) {
 			LOGGER.error("Unable to execute batch mutation.", e);
+		} finally {
+			CassandraOperationTracer.trace(OperationType.STORE, keyspaceName,
+					columnFamilyName, null, values.size(), result, start);
 		}
 	}
 
@@ -293,10 +481,20 @@ public class CassandraUtilities {
 					entry.getKey(), entry.getValue(), null);
 		}
 
+		final long start = System.nanoTime();
+		OperationResult<?> result = null;
 		try {
-			mutationBatch.execute();
+			if (CassandraIndexManager.addIndexMutations(keyspaceName,
+					mutationBatch, columnFamilyName,
+					Collections.singletonMap(rowKey, values))) {
+				mutationBatch.withAtomicBatch(true);
+			}
+			result = mutationBatch.execute();
 		} catch (ConnectionException e) {
 			LOGGER.error("Unable to write to Cassandra.", e);
+		} finally {
+			CassandraOperationTracer.trace(OperationType.STORE,
+					keyspaceName, columnFamilyName, rowKey, 1, result, start);
 		}
 	}
 
@@ -311,13 +509,32 @@ public class CassandraUtilities {
 			final String columnFamilyName, final String rowKey,
 			final String columnName) {
 		try {
-			CassandraClientManager.getKeyspace(keyspaceName)
+			if (CassandraIndexManager.getIndexedColumns(keyspaceName,
+					columnFamilyName).contains(columnName)) {
+				final Map<Entry<String, String>, Set<String>> columns = new HashMap<>();
+				columns.put(new SimpleImmutableEntry<>(columnFamilyName, rowKey),
+						Collections.singleton(columnName));
+				deleteData(keyspaceName, columns);
+				return;
+			}
+		} catch (ConnectionException e) {
+			LOGGER.error("Unable to delete data.", e);
+			return;
+		}
+
+		final long start = System.nanoTime();
+		OperationResult<?> result = null;
+		try {
+			result = CassandraClientManager.getKeyspace(keyspaceName)
 			.prepareColumnMutation(
 					CassandraClientManager.getColumnFamily(columnFamilyName),
 					rowKey, columnName)
 					.deleteColumn().execute();
 		} catch (ConnectionException e) {
 			LOGGER.error("Unable to store data.", e);
+		} finally {
+			CassandraOperationTracer.trace(OperationType.DELETE,
+					keyspaceName, columnFamilyName, rowKey, 1, result, start);
 		}
 	}
 
@@ -353,10 +570,19 @@ public class CassandraUtilities {
 			}
 		}
 
+		final long start = System.nanoTime();
+		OperationResult<?> result = null;
 		try {
-			mutationBatch.execute();
+			if (CassandraIndexManager.removeIndexMutations(keyspaceName,
+					mutationBatch, columns)) {
+				mutationBatch.withAtomicBatch(true);
+			}
+			result = mutationBatch.execute();
 		} catch (ConnectionException e) {
 			LOGGER.error("Unable to execute batch mutation.", e);
+		} finally {
+			CassandraOperationTracer.trace(OperationType.DELETE,
+					keyspaceName, null, null, columns.size(), result, start);
 		}
 	}
 
@@ -376,18 +602,30 @@ public class CassandraUtilities {
 			final Entry<String, Set<String>> entry = iter.next();
 			// final String columnFamilyName = entry.getKey();
 
+			final Map<String, Set<String>> deleted = new HashMap<>();
 			final Iterator<String> rowKeyIter = entry.getValue().iterator();
 			while (rowKeyIter.hasNext()) {
 				final String rowKey = rowKeyIter.next();
 				mutationBatch.withRow(
 						CassandraClientManager.getColumnFamily(entry.getKey()),
 						rowKey).delete();
+				deleted.put(rowKey, null);
 			}
 
+			final long start = System.nanoTime();
+			OperationResult<?> result = null;
 			try {
-				mutationBatch.execute();
+				if (CassandraIndexManager.removeIndexMutations(keyspaceName,
+						mutationBatch, entry.getKey(), deleted)) {
+					mutationBatch.withAtomicBatch(true);
+				}
+				result = mutationBatch.execute();
 			} catch (ConnectionException e) {
 				LOGGER.error("Error in executing batch mutation.", e);
+			} finally {
+				CassandraOperationTracer.trace(OperationType.DELETE_ROWS,
+						keyspaceName, entry.getKey(), null, deleted.size(),
+						result, start);
 			}
 		}
 	}
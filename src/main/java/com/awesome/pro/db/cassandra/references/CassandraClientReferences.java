@@ -91,6 +91,49 @@ public class CassandraClientReferences {
 		COLUMN_FAMILY_OPTIONS.put(CF_COMPARATOR_CLASS, CF_DEFAULT_COMPARATOR_CLASS);
 		COLUMN_FAMILY_OPTIONS.put(CF_VALIDATOR_CLASS, CF_DEFAULT_VALIDATOR_CLASS);
 	}
-	
+
+	// Secondary index configurations.
+	public static final String INDEX_COLUMN_FAMILY_SUFFIX = "_index";
+	public static final char INDEX_KEY_SEPARATOR = ':';
+	public static final String INDEX_COLUMN_VALUE = "";
+	public static final String INDEX_METADATA_ROW_KEY = "_columns";
+	public static final String PARAMETER_INDEX_REFRESH = "IndexRefreshMillis";
+	public static final int DEFAULT_INDEX_REFRESH = 60000;
+	public static final String PARAMETER_INDEX_QUERY_PAGE_SIZE = "IndexQueryPageSize";
+	public static final int DEFAULT_INDEX_QUERY_PAGE_SIZE = 100;
+	public static final String PARAMETER_INDEX_REBUILD_CONCURRENCY = "IndexRebuildConcurrency";
+	public static final String PARAMETER_INDEX_REBUILD_PAGE_SIZE = "IndexRebuildPageSize";
+	public static final int DEFAULT_INDEX_REBUILD_CONCURRENCY = 4;
+	public static final int DEFAULT_INDEX_REBUILD_PAGE_SIZE = 100;
+
+	// Operation tracing configurations.
+	public static final String SLOW_QUERY_LOGGER_NAME = "CassandraSlowQueryLog";
+	public static final String TRACE_THREAD_NAME = "cassandra-slow-query-log";
+	public static final String PARAMETER_SLOW_QUERY_THRESHOLD = "SlowQueryThresholdMillis";
+	public static final String PARAMETER_SLOW_QUERY_QUEUE_SIZE = "SlowQueryQueueSize";
+	public static final String PARAMETER_TRACE_SAMPLE_RATE = "TraceSampleRate";
+	public static final String PARAMETER_TRACE_BUFFER_SIZE = "TraceBufferSize";
+	public static final int DEFAULT_SLOW_QUERY_THRESHOLD = 100;
+	public static final int DEFAULT_SLOW_QUERY_QUEUE_SIZE = 4096;
+	public static final int DEFAULT_TRACE_SAMPLE_RATE = 100;
+	public static final int DEFAULT_TRACE_BUFFER_SIZE = 1024;
+
+	// Bulk load configurations.
+	public static final String CHECKPOINT_FILE_SUFFIX = ".checkpoint";
+	public static final String PARAMETER_BULK_LOAD_THREADS = "BulkLoadThreads";
+	public static final String PARAMETER_BULK_LOAD_CHUNK_SIZE = "BulkLoadChunkSizeMB";
+	public static final String PARAMETER_BULK_LOAD_BATCH_ROWS = "BulkLoadBatchRows";
+	public static final String PARAMETER_BULK_LOAD_BATCH_BYTES = "BulkLoadBatchBytes";
+	public static final String PARAMETER_BULK_LOAD_ROWS_PER_SECOND = "BulkLoadRowsPerSecond";
+	public static final String PARAMETER_BULK_LOAD_RETRIES = "BulkLoadRetries";
+	public static final String PARAMETER_BULK_LOAD_RETRY_BACKOFF = "BulkLoadRetryBackoffMillis";
+	public static final int DEFAULT_BULK_LOAD_THREADS = 4;
+	public static final int DEFAULT_BULK_LOAD_CHUNK_SIZE = 16;
+	public static final int DEFAULT_BULK_LOAD_BATCH_ROWS = 100;
+	public static final int DEFAULT_BULK_LOAD_BATCH_BYTES = 1024 * 1024;
+	public static final int DEFAULT_BULK_LOAD_ROWS_PER_SECOND = 0;
+	public static final int DEFAULT_BULK_LOAD_RETRIES = 3;
+	public static final int DEFAULT_BULK_LOAD_RETRY_BACKOFF = 500;
+
 
 }